@@ -0,0 +1,641 @@
+// BankingBenchmarkState.java
+package com.example.banking.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.example.banking.config.AppConfig;
+import com.example.banking.entity.Account;
+import com.example.banking.service.BankingService;
+
+// One Spring context per trial, backed by an in-memory H2 database in MySQL mode
+@State(Scope.Benchmark)
+public class BankingBenchmarkState {
+    
+    @Param({ "10000" })
+    public int accounts;
+    
+    // Share of transfers that touch one of the hot accounts (0 = uniform)
+    @Param({ "0.0", "0.9" })
+    public double skew;
+    
+    @Param({ "10" })
+    public int hotAccounts;
+    
+    // Balance slots per hot account (0 = not striped)
+    @Param({ "0" })
+    public int stripes;
+    
+    @Param({ "PESSIMISTIC" })
+    public String transferMode;
+    
+    @Param({ "false" })
+    public boolean admission;
+    
+    public BankingService bankingService;
+    
+    private AnnotationConfigApplicationContext context;
+    private final AtomicLong createdAccounts = new AtomicLong();
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        // System properties take precedence over database.properties
+        System.setProperty("jdbc.driverClassName", "org.h2.Driver");
+        System.setProperty("jdbc.url", "jdbc:h2:mem:bench;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("jdbc.username", "sa");
+        System.setProperty("jdbc.password", "");
+        System.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        System.setProperty("hibernate.show_sql", "false");
+        System.setProperty("hibernate.format_sql", "false");
+        System.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        System.setProperty("banking.transfer.mode", transferMode);
+        System.setProperty("banking.admission.enabled", String.valueOf(admission));
+        // Small ranges so that ReconciliationBenchmark has work for every core
+        System.setProperty("banking.reconciliation.rangeSize", "500");
+        System.setProperty("banking.reconciliation.directory", System.getProperty("java.io.tmpdir") + "/reconciliation");
+        
+        context = new AnnotationConfigApplicationContext(AppConfig.class);
+        bankingService = context.getBean(BankingService.class);
+        for (int i = 0; i < accounts; i++) {
+            // Large enough that no transfer during a run fails for lack of funds
+            bankingService.createAccount(new Account(accountNumber(i), "Benchmark " + i, 1_000_000_000.0));
+        }
+        if (stripes > 0) {
+            for (int i = 0; i < hotAccounts; i++) {
+                bankingService.stripeAccount(accountNumber(i), stripes);
+            }
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+    
+    public String randomAccount() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < skew) {
+            return accountNumber(random.nextInt(hotAccounts));
+        }
+        return accountNumber(random.nextInt(accounts));
+    }
+    
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+    
+    public String newAccountNumber() {
+        return "NEW" + createdAccounts.incrementAndGet() + "-" + Thread.currentThread().threadId();
+    }
+    
+    public static String accountNumber(int index) {
+        return String.format("ACC%07d", index);
+    }
+}
+
+// BankingServiceBenchmark.java
+package com.example.banking.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.banking.entity.Account;
+import com.example.banking.exception.InsufficientFundsException;
+
+// Single-threaded by default; pass -t <threads> to measure under concurrency
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(1)
+public class BankingServiceBenchmark {
+    
+    @Benchmark
+    public void transferMoney(BankingBenchmarkState state) throws InsufficientFundsException {
+        String from = state.randomAccount();
+        String to = state.randomAccount();
+        state.bankingService.transferMoney(from, to, 1.0);
+    }
+    
+    @Benchmark
+    public Account getAccount(BankingBenchmarkState state) {
+        return state.bankingService.getAccount(state.randomAccount());
+    }
+    
+    @Benchmark
+    public void createAccount(BankingBenchmarkState state) {
+        state.bankingService.createAccount(new Account(state.newAccountNumber(), "Benchmark", 100.0));
+    }
+}
+
+// OverloadBenchmark.java
+package com.example.banking.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.banking.exception.InsufficientFundsException;
+import com.example.banking.exception.TransferRejectedException;
+
+// Drives far more concurrent transfers than the connection pool can serve. Compare the latency
+// percentiles and the admitted/rejected counters of
+//   java -jar target/benchmarks.jar OverloadBenchmark -p admission=false,true
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(256)
+public class OverloadBenchmark {
+    
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        public long admitted;
+        public long rejected;
+    }
+    
+    @Benchmark
+    public void transferMoney(BankingBenchmarkState state, Outcomes outcomes) throws InsufficientFundsException {
+        try {
+            state.bankingService.transferMoney(state.randomAccount(), state.randomAccount(), 1.0);
+            outcomes.admitted++;
+        } catch (TransferRejectedException e) {
+            outcomes.rejected++;
+        }
+    }
+}
+
+// ReconciliationBenchmark.java
+package com.example.banking.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.banking.reconciliation.ReconciliationJob;
+import com.example.banking.reconciliation.ReconciliationReport;
+import com.example.banking.service.TransferRequest;
+
+// Full reconciliation passes; the "rows" counter is reported as account plus transaction rows per
+// second. Compare scaling across cores with
+//   java -jar target/benchmarks.jar ReconciliationBenchmark -p skew=0.0 -p parallelism=1,2,4,8
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReconciliationBenchmark {
+    
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rows {
+        public long rows;
+    }
+    
+    @Param({ "1", "2", "4", "8" })
+    public int parallelism;
+    
+    @Param({ "1000000" })
+    public int transfers;
+    
+    private ReconciliationJob job;
+    
+    @Setup(Level.Trial)
+    public void setUp(BankingBenchmarkState state) {
+        job = state.getBean(ReconciliationJob.class);
+        List<TransferRequest> batch = new ArrayList<>();
+        for (int i = 0; i < transfers; i++) {
+            batch.add(new TransferRequest(state.randomAccount(), state.randomAccount(), 1.0));
+            if (batch.size() == 1000) {
+                state.bankingService.transferMoneyBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            state.bankingService.transferMoneyBatch(batch);
+        }
+    }
+    
+    @Benchmark
+    public ReconciliationReport reconcile(Rows rows) throws IOException {
+        ReconciliationReport report = job.run(false, parallelism);
+        if (report.getMismatches() > 0) {
+            throw new IllegalStateException("Unexpected mismatches: " + report);
+        }
+        rows.rows += report.getAccounts() + report.getTransactionRows();
+        return report;
+    }
+}
+
+// StatementExportBenchmark.java
+package com.example.banking.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.banking.export.ExportFormat;
+import com.example.banking.export.ExportSummary;
+import com.example.banking.export.StatementExporter;
+import com.example.banking.service.TransferRequest;
+
+// Full statement exports of every transaction of exportAccounts accounts. The "rows" and "bytes"
+// counters are reported per second; divide bytes/s by 1048576 for MB/sec. Above 1000 accounts the
+// account filter runs in memory instead of in the query, e.g.
+//   java -jar target/benchmarks.jar StatementExportBenchmark -p skew=0.0 -p exportAccounts=100,10000
+// Run with -prof gc to check that allocation per row stays flat as transfers grows.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatementExportBenchmark {
+    
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Output {
+        public long rows;
+        public long bytes;
+    }
+    
+    @Param({ "CSV", "BINARY" })
+    public ExportFormat format;
+    
+    @Param({ "100", "10000" })
+    public int exportAccounts;
+    
+    @Param({ "1000000" })
+    public int transfers;
+    
+    private StatementExporter exporter;
+    private List<String> accountNumbers;
+    private Date fromDate;
+    private Date toDate;
+    private Path target;
+    
+    @Setup(Level.Trial)
+    public void setUp(BankingBenchmarkState state) throws IOException {
+        exporter = state.getBean(StatementExporter.class);
+        fromDate = new Date();
+        List<TransferRequest> batch = new ArrayList<>();
+        for (int i = 0; i < transfers; i++) {
+            batch.add(new TransferRequest(state.randomAccount(), state.randomAccount(), 1.0));
+            if (batch.size() == 1000) {
+                state.bankingService.transferMoneyBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            state.bankingService.transferMoneyBatch(batch);
+        }
+        
+        accountNumbers = new ArrayList<>(exportAccounts);
+        for (int i = 0; i < Math.min(exportAccounts, state.accounts); i++) {
+            accountNumbers.add(BankingBenchmarkState.accountNumber(i));
+        }
+        toDate = new Date(System.currentTimeMillis() + 1);
+        target = Files.createTempFile("statement", ".export");
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+    }
+    
+    @Benchmark
+    public ExportSummary export(Output output) throws IOException {
+        ExportSummary summary = exporter.export(accountNumbers, fromDate, toDate, format, target);
+        output.rows += summary.getRows();
+        output.bytes += summary.getBytes();
+        return summary;
+    }
+}
+
+// LockOrderingBenchmark.java
+package com.example.banking.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.PessimisticLockException;
+import org.hibernate.exception.LockAcquisitionException;
+import org.hibernate.exception.LockTimeoutException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.PessimisticLockingFailureException;
+
+import com.example.banking.exception.InsufficientFundsException;
+import com.example.banking.service.TransferRequest;
+import com.example.banking.service.TransferResult;
+
+// Stress test for the lock ordering of PESSIMISTIC transfers: every group hammers one pair of
+// accounts with A->B and B->A transfers at the same time. Without ordered locking these two
+// directions deadlock; with it the deadlocks and lockTimeouts counters should stay at zero while
+// the throughput score gives transfers/sec. Scale the number of contending pairs with -tg, e.g.
+//   java -jar target/benchmarks.jar LockOrderingBenchmark -tg 4,4
+// With -p stripes=4 the first account of each pair is a striped hot account, so single transfers
+// lock its slots and the "batch" group also runs batches, which lock rows and slots together:
+//   java -jar target/benchmarks.jar LockOrderingBenchmark -p stripes=4 -tg 4,4
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class LockOrderingBenchmark {
+    
+    @State(Scope.Group)
+    public static class Pair {
+        private static final AtomicInteger nextPair = new AtomicInteger();
+        
+        public String first;
+        public String second;
+        
+        @Setup
+        public void setUp(BankingBenchmarkState state) {
+            if (!"PESSIMISTIC".equals(state.transferMode)) {
+                throw new IllegalStateException("LockOrderingBenchmark needs -p transferMode=PESSIMISTIC");
+            }
+            if (state.stripes > 0) {
+                int pair = nextPair.getAndIncrement() % (state.accounts - state.hotAccounts);
+                first = BankingBenchmarkState.accountNumber(pair % state.hotAccounts);
+                second = BankingBenchmarkState.accountNumber(state.hotAccounts + pair);
+            } else {
+                int pair = nextPair.getAndIncrement() % (state.accounts / 2);
+                first = BankingBenchmarkState.accountNumber(2 * pair);
+                second = BankingBenchmarkState.accountNumber(2 * pair + 1);
+            }
+        }
+    }
+    
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Failures {
+        public long deadlocks;
+        public long lockTimeouts;
+    }
+    
+    @Benchmark
+    @Group("opposing")
+    @GroupThreads(2)
+    public void forward(BankingBenchmarkState state, Pair pair, Failures failures)
+            throws InsufficientFundsException {
+        
+        transfer(state, pair.first, pair.second, failures);
+    }
+    
+    @Benchmark
+    @Group("opposing")
+    @GroupThreads(2)
+    public void backward(BankingBenchmarkState state, Pair pair, Failures failures)
+            throws InsufficientFundsException {
+        
+        transfer(state, pair.second, pair.first, failures);
+    }
+    
+    @Benchmark
+    @Group("batch")
+    @GroupThreads(2)
+    public void single(BankingBenchmarkState state, Pair pair, Failures failures) throws InsufficientFundsException {
+        transfer(state, pair.first, pair.second, failures);
+    }
+    
+    // Both directions in one transaction, against single transfers in one of them
+    @Benchmark
+    @Group("batch")
+    @GroupThreads(2)
+    public List<TransferResult> batch(BankingBenchmarkState state, Pair pair, Failures failures) {
+        try {
+            List<TransferRequest> requests = Arrays.asList(new TransferRequest(pair.second, pair.first, 1.0),
+                    new TransferRequest(pair.first, pair.second, 1.0));
+            return state.bankingService.transferMoneyBatch(requests);
+        } catch (RuntimeException e) {
+            count(e, failures);
+            return null;
+        }
+    }
+    
+    private static void transfer(BankingBenchmarkState state, String from, String to, Failures failures)
+            throws InsufficientFundsException {
+        
+        try {
+            state.bankingService.transferMoney(from, to, 1.0);
+        } catch (RuntimeException e) {
+            count(e, failures);
+        }
+    }
+    
+    private static void count(RuntimeException e, Failures failures) {
+        if (isLockTimeout(e)) {
+            failures.lockTimeouts++;
+        } else if (isDeadlock(e)) {
+            failures.deadlocks++;
+        } else {
+            throw e;
+        }
+    }
+    
+    private static boolean isLockTimeout(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CannotAcquireLockException || cause instanceof LockTimeoutException
+                    || cause instanceof javax.persistence.LockTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Timeouts are checked first: Spring, JPA and Hibernate all report them as a kind of lock failure
+    private static boolean isDeadlock(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PessimisticLockingFailureException
+                    || cause instanceof javax.persistence.PessimisticLockException
+                    || cause instanceof PessimisticLockException || cause instanceof LockAcquisitionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
+
+// BenchmarkRunner.java
+package com.example.banking.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Accepts the usual JMH command line and writes results as JSON so runs can be compared, e.g.
+//   java -jar target/benchmarks.jar -t 8 -p skew=0.9 -p transferMode=OPTIMISTIC
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(commandLine.getResult().orElse("jmh-result.json"))
+                .build();
+        new Runner(options).run();
+    }
+}
+
+// pom.xml
+<project xmlns="http://maven.apache.org/POM/4.0.0"
+    xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance"
+    xsi:schemaLocation="http://maven.apache.org/POM/4.0.0 https://maven.apache.org/xsd/maven-4.0.0.xsd">
+    <modelVersion>4.0.0</modelVersion>
+    <groupId>com.example</groupId>
+    <artifactId>spring-hibernate-banking-benchmarks</artifactId>
+    <version>0.0.1-SNAPSHOT</version>
+    
+    <properties>
+        <maven.compiler.source>21</maven.compiler.source>
+        <maven.compiler.target>21</maven.compiler.target>
+        <jmh.version>1.37</jmh.version>
+    </properties>
+    
+    <dependencies>
+        <!-- Banking application under test -->
+        <dependency>
+            <groupId>com.example</groupId>
+            <artifactId>spring-hibernate-banking</artifactId>
+            <version>0.0.1-SNAPSHOT</version>
+        </dependency>
+        
+        <!-- JMH -->
+        <dependency>
+            <groupId>org.openjdk.jmh</groupId>
+            <artifactId>jmh-core</artifactId>
+            <version>${jmh.version}</version>
+        </dependency>
+        
+        <dependency>
+            <groupId>org.openjdk.jmh</groupId>
+            <artifactId>jmh-generator-annprocess</artifactId>
+            <version>${jmh.version}</version>
+            <scope>provided</scope>
+        </dependency>
+        
+        <!-- Same override as the application: Hibernate's own byte-buddy predates Java 21 -->
+        <dependency>
+            <groupId>net.bytebuddy</groupId>
+            <artifactId>byte-buddy</artifactId>
+            <version>1.14.18</version>
+        </dependency>
+        
+        <!-- Embedded database (MySQL mode) -->
+        <dependency>
+            <groupId>com.h2database</groupId>
+            <artifactId>h2</artifactId>
+            <version>2.2.224</version>
+        </dependency>
+    </dependencies>
+    
+    <build>
+        <plugins>
+            <!-- Builds target/benchmarks.jar -->
+            <plugin>
+                <groupId>org.apache.maven.plugins</groupId>
+                <artifactId>maven-shade-plugin</artifactId>
+                <version>3.5.1</version>
+                <executions>
+                    <execution>
+                        <phase>package</phase>
+                        <goals>
+                            <goal>shade</goal>
+                        </goals>
+                        <configuration>
+                            <finalName>benchmarks</finalName>
+                            <transformers>
+                                <transformer implementation="org.apache.maven.plugins.shade.resource.ManifestResourceTransformer">
+                                    <mainClass>com.example.banking.benchmark.BenchmarkRunner</mainClass>
+                                </transformer>
+                                <transformer implementation="org.apache.maven.plugins.shade.resource.ServicesResourceTransformer"/>
+                            </transformers>
+                        </configuration>
+                    </execution>
+                </executions>
+            </plugin>
+        </plugins>
+    </build>
+</project>
@@ -1,19 +1,33 @@
 // Student.java
 package com.example.hibernate;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+
+// Dirty students are updated with only the columns that changed. Reads by id are served from the
+// "students" second-level cache region (size and TTL in ehcache.xml).
 @Entity
 @Table(name = "students")
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "students")
 public class Student {
     
+    // IDENTITY would force an INSERT per save and silently disable JDBC batching. MySQL has no
+    // sequences, so Hibernate keeps this one in a table and hands out 50 ids per round trip.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "student_seq")
+    @SequenceGenerator(name = "student_seq", sequenceName = "student_seq", allocationSize = 50)
     private int id;
     
     @Column(name = "name")
@@ -77,6 +91,22 @@ public class HibernateUtil {
                 Configuration configuration = new Configuration().configure("hibernate.cfg.xml");
                 configuration.addAnnotatedClass(Student.class);
                 
+                // Second-level and query cache through JCache, backed by an in-process Ehcache
+                configuration.setProperty("hibernate.cache.use_second_level_cache", "true");
+                configuration.setProperty("hibernate.cache.use_query_cache", "true");
+                configuration.setProperty("hibernate.cache.region.factory_class", "jcache");
+                configuration.setProperty("hibernate.javax.cache.provider",
+                        "org.ehcache.jsr107.EhcacheCachingProvider");
+                configuration.setProperty("hibernate.javax.cache.uri", "ehcache.xml");
+                configuration.setProperty("hibernate.generate_statistics", "true");
+                
+                // System properties take precedence, e.g. -Dhibernate.show_sql=false
+                for (String name : System.getProperties().stringPropertyNames()) {
+                    if (name.startsWith("hibernate.")) {
+                        configuration.setProperty(name, System.getProperty(name));
+                    }
+                }
+                
                 ServiceRegistry serviceRegistry = new StandardServiceRegistryBuilder()
                     .applySettings(configuration.getProperties()).build();
                 
@@ -89,32 +119,315 @@ public class HibernateUtil {
     }
 }
 
+// StudentOps.java
+package com.example.hibernate;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// The student operations available inside StudentDAO.inTransaction. They all share one Session and
+// one transaction: students read here are managed, so changes to them are written at commit
+// without an explicit update, and the inserts and updates go out together as JDBC batches.
+//
+// The bulk operations (the ones returning a row count) go straight to the database. Students
+// already loaded in the same unit of work do not see their effect.
+public interface StudentOps {
+    
+    void save(Student student);
+    
+    Student get(int id);
+    
+    // Reattaches a student loaded outside this unit of work
+    void update(Student student);
+    
+    // Does not load the student first, unless this unit of work already has it; only that student's
+    // entry leaves the second-level cache (the cached queries are invalidated as for any delete)
+    void delete(int id);
+    
+    List<Student> findPage(int afterId, int limit);
+    
+    int deleteAll(Collection<Integer> ids);
+    
+    int updateAges(Map<Integer, Integer> agesById);
+    
+    // fromAge and toAge inclusive
+    int incrementAgesBetween(int fromAge, int toAge, int delta);
+    
+    int deleteOlderThan(int age);
+}
+
+// SessionStudentOps.java
+package com.example.hibernate;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.transaction.Synchronization;
+
+import org.hibernate.Cache;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+
+class SessionStudentOps implements StudentOps {
+    
+    // Ids per DELETE ... IN statement
+    private static final int IN_CLAUSE_SIZE = 1000;
+    
+    // Matches hibernate.jdbc.batch_size
+    private static final int JDBC_BATCH_SIZE = 50;
+    
+    // Declared by the native single-row delete instead of the students table, so Hibernate does not
+    // clear the whole students cache region for it (see delete)
+    private static final String ROW_DELETE_QUERY_SPACE = "student_rows";
+    
+    private final Session session;
+    
+    SessionStudentOps(Session session) {
+        this.session = session;
+    }
+    
+    @Override
+    public void save(Student student) {
+        session.save(student);
+    }
+    
+    @Override
+    public Student get(int id) {
+        return session.get(Student.class, id);
+    }
+    
+    @Override
+    public void update(Student student) {
+        session.update(student);
+    }
+    
+    @Override
+    public void delete(int id) {
+        // getReference hands back the student when this session has already loaded it, otherwise an
+        // uninitialized proxy; only the former has to be deleted through the session
+        Student student = session.byId(Student.class).getReference(id);
+        if (Hibernate.isInitialized(student)) {
+            session.delete(student);
+            return;
+        }
+        session.detach(student);
+        // Native, under a query space of its own: an HQL delete would clear the whole students region
+        evictAfterCompletion(Collections.singleton(id));
+        session.createNativeQuery("delete from students where id = :id")
+                .addSynchronizedQuerySpace(ROW_DELETE_QUERY_SPACE)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
+    
+    @Override
+    public List<Student> findPage(int afterId, int limit) {
+        Query<Student> query = session.createQuery("from Student s where s.id > :afterId order by s.id",
+                Student.class);
+        query.setParameter("afterId", afterId);
+        query.setMaxResults(limit);
+        query.setReadOnly(true);
+        // Invalidated whenever the students table changes
+        query.setCacheable(true);
+        query.setCacheRegion(StudentDAO.QUERY_CACHE_REGION);
+        return query.list();
+    }
+    
+    @Override
+    public int deleteAll(Collection<Integer> ids) {
+        List<Integer> remaining = new ArrayList<>(ids);
+        int deleted = 0;
+        for (int from = 0; from < remaining.size(); from += IN_CLAUSE_SIZE) {
+            List<Integer> chunk = remaining.subList(from, Math.min(from + IN_CLAUSE_SIZE, remaining.size()));
+            deleted += session.createQuery("delete from Student s where s.id in (:ids)")
+                    .setParameterList("ids", chunk)
+                    .executeUpdate();
+        }
+        return deleted;
+    }
+    
+    // Each student needs its own value, so this is one prepared UPDATE sent in JDBC batches. Plain
+    // JDBC is invisible to Hibernate, so the cached copies are evicted once the transaction ends.
+    @Override
+    public int updateAges(Map<Integer, Integer> agesById) {
+        evictAfterCompletion(new HashSet<>(agesById.keySet()));
+        return session.doReturningWork(connection -> {
+            String sql = "update students set age = ? where id = ?";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                int updated = 0;
+                int pending = 0;
+                for (Map.Entry<Integer, Integer> age : agesById.entrySet()) {
+                    statement.setInt(1, age.getValue());
+                    statement.setInt(2, age.getKey());
+                    statement.addBatch();
+                    if (++pending == JDBC_BATCH_SIZE) {
+                        updated += count(statement.executeBatch());
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    updated += count(statement.executeBatch());
+                }
+                return updated;
+            }
+        });
+    }
+    
+    @Override
+    public int incrementAgesBetween(int fromAge, int toAge, int delta) {
+        return session.createQuery(
+                "update Student s set s.age = s.age + :delta where s.age between :fromAge and :toAge")
+                .setParameter("delta", delta)
+                .setParameter("fromAge", fromAge)
+                .setParameter("toAge", toAge)
+                .executeUpdate();
+    }
+    
+    @Override
+    public int deleteOlderThan(int age) {
+        return session.createQuery("delete from Student s where s.age > :age")
+                .setParameter("age", age)
+                .executeUpdate();
+    }
+    
+    // For writes Hibernate does not track: the given students and the cached queries
+    private void evictAfterCompletion(Set<Integer> ids) {
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+            
+            @Override
+            public void afterCompletion(int status) {
+                Cache cache = session.getSessionFactory().getCache();
+                for (Integer id : ids) {
+                    cache.evictEntityData(Student.class, id);
+                }
+                cache.evictQueryRegion(StudentDAO.QUERY_CACHE_REGION);
+            }
+        });
+    }
+    
+    // A rewritten batch may report SUCCESS_NO_INFO instead of per-statement counts
+    private int count(int[] updateCounts) {
+        int rows = 0;
+        for (int updateCount : updateCounts) {
+            rows += updateCount == Statement.SUCCESS_NO_INFO ? 1 : updateCount;
+        }
+        return rows;
+    }
+}
+
 // StudentDAO.java
 package com.example.hibernate;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
+import org.hibernate.query.Query;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 
 public class StudentDAO {
     
-    // Create
-    public void saveStudent(Student student) {
+    static final String QUERY_CACHE_REGION = "student-queries";
+    
+    // Students committed per transaction by the bulk import
+    private static final int IMPORT_CHUNK_SIZE = 10_000;
+    
+    // Rows per round trip when streaming (needs useCursorFetch=true on MySQL, see hibernate.cfg.xml)
+    private static final int STREAM_FETCH_SIZE = 1000;
+    
+    // Unit of work: runs any number of operations in one Session and one transaction, so a workflow
+    // checks out one connection and commits once. Returns the work's result, or null when it failed
+    // and was rolled back.
+    public <T> T inTransaction(Function<StudentOps, T> work) {
         Transaction transaction = null;
         try (Session session = HibernateUtil.getSessionFactory().openSession()) {
             transaction = session.beginTransaction();
-            session.save(student);
+            T result = work.apply(new SessionStudentOps(session));
             transaction.commit();
+            return result;
         } catch (Exception e) {
-            if (transaction != null) {
+            if (transaction != null && transaction.isActive()) {
                 transaction.rollback();
             }
             e.printStackTrace();
+            return null;
         }
     }
     
-    // Read by ID
+    // Same for work without a result; returns whether it was committed
+    public boolean runInTransaction(Consumer<StudentOps> work) {
+        Boolean committed = inTransaction(ops -> {
+            work.accept(ops);
+            return Boolean.TRUE;
+        });
+        return committed != null;
+    }
+    
+    // Create
+    public void saveStudent(Student student) {
+        runInTransaction(ops -> ops.save(student));
+    }
+    
+    // Bulk create
+    public int saveStudents(Iterable<Student> students) {
+        return saveStudents(students.iterator());
+    }
+    
+    public int saveStudents(Stream<Student> students) {
+        return saveStudents(students.iterator());
+    }
+    
+    // Inserts through a StatelessSession (no persistence context to grow, no dirty checking) in
+    // JDBC batches of hibernate.jdbc.batch_size, one transaction per IMPORT_CHUNK_SIZE students.
+    // Returns the number of students saved; on failure the current chunk is rolled back and the
+    // chunks before it stay committed. A StatelessSession bypasses the second-level cache, so the
+    // cached queries are evicted after every chunk.
+    public int saveStudents(Iterator<Student> students) {
+        int saved = 0;
+        Transaction transaction = null;
+        try (StatelessSession session = HibernateUtil.getSessionFactory().openStatelessSession()) {
+            while (students.hasNext()) {
+                transaction = session.beginTransaction();
+                int chunk = 0;
+                while (chunk < IMPORT_CHUNK_SIZE && students.hasNext()) {
+                    session.insert(students.next());
+                    chunk++;
+                }
+                transaction.commit();
+                HibernateUtil.getSessionFactory().getCache().evictQueryRegion(QUERY_CACHE_REGION);
+                saved += chunk;
+            }
+        } catch (Exception e) {
+            if (transaction != null && transaction.isActive()) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+        }
+        return saved;
+    }
+    
+    // Read by ID; repeated reads of the same student are served from the second-level cache
     public Student getStudent(int id) {
         try (Session session = HibernateUtil.getSessionFactory().openSession()) {
             return session.get(Student.class, id);
@@ -124,7 +437,8 @@ public class StudentDAO {
         }
     }
     
-    // Read all
+    // Read all. Every row becomes a managed entity held in memory at once, so this is only for small
+    // tables; iterate large ones with streamStudents or findPage.
     @SuppressWarnings("unchecked")
     public List<Student> getAllStudents() {
         try (Session session = HibernateUtil.getSessionFactory().openSession()) {
@@ -135,58 +449,106 @@ public class StudentDAO {
         }
     }
     
-    // Update
-    public void updateStudent(Student student) {
-        Transaction transaction = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            transaction = session.beginTransaction();
-            session.update(student);
-            transaction.commit();
-        } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
+    // Read all in constant memory: rows come from a forward-only cursor through a StatelessSession,
+    // so nothing is retained once the consumer returns. Returns the number of students read.
+    public long streamStudents(Consumer<Student> consumer) {
+        long count = 0;
+        try (StatelessSession session = HibernateUtil.getSessionFactory().openStatelessSession()) {
+            Query<Student> query = session.createQuery("from Student s order by s.id", Student.class);
+            query.setFetchSize(STREAM_FETCH_SIZE);
+            query.setReadOnly(true);
+            try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    consumer.accept((Student) results.get(0));
+                    count++;
+                }
             }
+        } catch (Exception e) {
             e.printStackTrace();
         }
+        return count;
+    }
+    
+    // Read a page: the first limit students with an id above afterId (0 for the first page). Seeks on
+    // the primary key, so every page costs the same however deep it is, unlike an OFFSET.
+    public List<Student> findPage(int afterId, int limit) {
+        return inTransaction(ops -> ops.findPage(afterId, limit));
+    }
+    
+    // Update
+    public void updateStudent(Student student) {
+        runInTransaction(ops -> ops.update(student));
     }
     
     // Delete
     public void deleteStudent(int id) {
-        Transaction transaction = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            transaction = session.beginTransaction();
-            Student student = session.get(Student.class, id);
-            if (student != null) {
-                session.delete(student);
-            }
-            transaction.commit();
-        } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
-            e.printStackTrace();
+        runInTransaction(ops -> ops.delete(id));
+    }
+    
+    // Bulk update and delete: set-based statements in one transaction, without loading any student.
+    // Each returns the number of rows affected, or 0 when it failed and was rolled back.
+    public int deleteStudents(Collection<Integer> ids) {
+        return rowCount(inTransaction(ops -> ops.deleteAll(ids)));
+    }
+    
+    public int updateAges(Map<Integer, Integer> agesById) {
+        return rowCount(inTransaction(ops -> ops.updateAges(agesById)));
+    }
+    
+    public int incrementAgesBetween(int fromAge, int toAge, int delta) {
+        return rowCount(inTransaction(ops -> ops.incrementAgesBetween(fromAge, toAge, delta)));
+    }
+    
+    public int deleteStudentsOlderThan(int age) {
+        return rowCount(inTransaction(ops -> ops.deleteOlderThan(age)));
+    }
+    
+    private int rowCount(Integer rows) {
+        return rows == null ? 0 : rows;
+    }
+    
+    // Hit ratios of the student entity and query cache regions since startup
+    public String getCacheStatistics() {
+        Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+        CacheRegionStatistics students = statistics.getDomainDataRegionStatistics("students");
+        CacheRegionStatistics queries = statistics.getQueryRegionStatistics(QUERY_CACHE_REGION);
+        return describe("students", students) + "\n" + describe(QUERY_CACHE_REGION, queries);
+    }
+    
+    private String describe(String region, CacheRegionStatistics statistics) {
+        if (statistics == null) {
+            return region + ": not used yet";
         }
+        long hits = statistics.getHitCount();
+        long lookups = hits + statistics.getMissCount();
+        return String.format("%s: hits=%d misses=%d puts=%d hitRatio=%.1f%% elements=%d", region, hits,
+                statistics.getMissCount(), statistics.getPutCount(), lookups == 0 ? 0.0 : 100.0 * hits / lookups,
+                statistics.getElementCountInMemory());
     }
 }
 
 // MainApp.java
 package com.example.hibernate;
 
+import java.util.IntSummaryStatistics;
 import java.util.List;
+import java.util.stream.IntStream;
 
 public class MainApp {
     public static void main(String[] args) {
         StudentDAO studentDAO = new StudentDAO();
         
-        // Create students
+        // Create students in one unit of work: one connection, one commit, one batch of inserts
         System.out.println("Creating new students...");
         Student student1 = new Student("Alice Johnson", 22);
         Student student2 = new Student("Bob Smith", 24);
         Student student3 = new Student("Charlie Brown", 21);
         
-        studentDAO.saveStudent(student1);
-        studentDAO.saveStudent(student2);
-        studentDAO.saveStudent(student3);
+        studentDAO.runInTransaction(ops -> {
+            ops.save(student1);
+            ops.save(student2);
+            ops.save(student3);
+        });
         
         // Read all students
         System.out.println("\nReading all students...");
@@ -213,12 +575,102 @@ public class MainApp {
         System.out.println("\nDeleting a student...");
         studentDAO.deleteStudent(3);
         
-        // Verify deletion by reading all remaining students
+        // Verify deletion by reading all remaining students, one page at a time
         System.out.println("\nRemaining students after deletion:");
-        students = studentDAO.getAllStudents();
-        for (Student student : students) {
-            System.out.println(student);
+        List<Student> page = studentDAO.findPage(0, 2);
+        while (!page.isEmpty()) {
+            for (Student student : page) {
+                System.out.println(student);
+            }
+            page = studentDAO.findPage(page.get(page.size() - 1).getId(), 2);
+        }
+        
+        // Bulk import
+        System.out.println("\nImporting students in bulk...");
+        int imported = studentDAO.saveStudents(
+                IntStream.range(0, 1000).mapToObj(i -> new Student("Imported Student " + i, 18 + i % 10)));
+        System.out.println("Imported " + imported + " students");
+        
+        // Stream every student without holding them in memory
+        IntSummaryStatistics ages = new IntSummaryStatistics();
+        long streamed = studentDAO.streamStudents(student -> ages.accept(student.getAge()));
+        System.out.println("Streamed " + streamed + " students, average age " + ages.getAverage());
+        
+        // Year-end cleanup with set-based statements
+        System.out.println("\nRunning bulk updates...");
+        System.out.println("Aged " + studentDAO.incrementAgesBetween(18, 27, 1) + " students by a year");
+        System.out.println("Removed " + studentDAO.deleteStudentsOlderThan(26) + " students older than 26");
+        
+        // Display second-level and query cache statistics
+        System.out.println("\nCache Statistics:");
+        System.out.println(studentDAO.getCacheStatistics());
+    }
+}
+
+// StudentCacheBenchmark.java
+package com.example.hibernate;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+
+// Reads a small set of hot students by id from several threads, first bypassing the second-level
+// cache and then through it, and prints the throughput of both runs and the cache hit ratios.
+// Usage: StudentCacheBenchmark [threads] [seconds per run] [hot students]
+public class StudentCacheBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int hotStudents = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        System.setProperty("hibernate.show_sql", "false");
+        
+        StudentDAO studentDAO = new StudentDAO();
+        studentDAO.saveStudents(IntStream.range(0, hotStudents)
+                .mapToObj(i -> new Student("Student " + i, 18 + i % 10)));
+        int[] ids = studentDAO.findPage(0, hotStudents).stream().mapToInt(Student::getId).toArray();
+        
+        double uncached = run(threads, seconds, id -> {
+            try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+                session.setCacheMode(CacheMode.IGNORE);
+                session.get(Student.class, id);
+            }
+        }, ids);
+        double cached = run(threads, seconds, studentDAO::getStudent, ids);
+        
+        System.out.printf("uncached: %.0f reads/s%n", uncached);
+        System.out.printf("cached:   %.0f reads/s (%.1fx)%n", cached, cached / uncached);
+        System.out.println(studentDAO.getCacheStatistics());
+        HibernateUtil.getSessionFactory().close();
+    }
+    
+    // Reads per second, measured after a warm-up of one second
+    private static double run(int threads, int seconds, IntConsumer read, int[] ids) throws InterruptedException {
+        LongAdder reads = new LongAdder();
+        long warmUpEnds = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long ends = warmUpEnds + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long now;
+                while ((now = System.nanoTime()) < ends) {
+                    read.accept(ids[random.nextInt(ids.length)]);
+                    if (now >= warmUpEnds) {
+                        reads.increment();
+                    }
+                }
+            });
         }
+        executor.shutdown();
+        executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+        return reads.sum() / (double) seconds;
     }
 }
 
@@ -231,7 +683,7 @@ public class MainApp {
     <session-factory>
         <!-- JDBC Database connection settings -->
         <property name="hibernate.connection.driver_class">com.mysql.cj.jdbc.Driver</property>
-        <property name="hibernate.connection.url">jdbc:mysql://localhost:3306/hibernate_db?useSSL=false&amp;serverTimezone=UTC</property>
+        <property name="hibernate.connection.url">jdbc:mysql://localhost:3306/hibernate_db?useSSL=false&amp;serverTimezone=UTC&amp;rewriteBatchedStatements=true&amp;useCursorFetch=true</property>
         <property name="hibernate.connection.username">root</property>
         <property name="hibernate.connection.password">password</property>
         
@@ -245,6 +697,11 @@ public class MainApp {
         <!-- Specify dialect -->
         <property name="hibernate.dialect">org.hibernate.dialect.MySQL8Dialect</property>
         
+        <!-- Send inserts and updates in JDBC batches (the driver rewrites them into multi-row statements) -->
+        <property name="hibernate.jdbc.batch_size">50</property>
+        <property name="hibernate.order_inserts">true</property>
+        <property name="hibernate.order_updates">true</property>
+        
         <!-- Echo all executed SQL to stdout -->
         <property name="hibernate.show_sql">true</property>
         
@@ -253,6 +710,34 @@ public class MainApp {
     </session-factory>
 </hibernate-configuration>
 
+// ehcache.xml
+<config xmlns="http://www.ehcache.org/v3">
+    
+    <!-- Student entities by id -->
+    <cache alias="students">
+        <expiry>
+            <ttl unit="seconds">600</ttl>
+        </expiry>
+        <heap unit="entries">10000</heap>
+    </cache>
+    
+    <!-- Cached query results (ids only; the students themselves come from the region above) -->
+    <cache alias="student-queries">
+        <expiry>
+            <ttl unit="seconds">60</ttl>
+        </expiry>
+        <heap unit="entries">1000</heap>
+    </cache>
+    
+    <!-- Last write per table, used to detect stale query results; must not expire before them -->
+    <cache alias="default-update-timestamps-region">
+        <expiry>
+            <none/>
+        </expiry>
+        <heap unit="entries">100</heap>
+    </cache>
+</config>
+
 // pom.xml
 <project xmlns="http://maven.apache.org/POM/4.0.0"
     xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance"
@@ -266,7 +751,7 @@ public class MainApp {
         <maven.compiler.source>11</maven.compiler.source>
         <maven.compiler.target>11</maven.compiler.target>
         <hibernate.version>5.6.15.Final</hibernate.version>
-        <mysql.version>8.0.33</mysql.version>
+        <mysql.version>9.1.0</mysql.version>
     </properties>
     
     <dependencies>
@@ -286,9 +771,22 @@ public class MainApp {
         
         <!-- MySQL JDBC Driver -->
         <dependency>
-            <groupId>mysql</groupId>
-            <artifactId>mysql-connector-java</artifactId>
+            <groupId>com.mysql</groupId>
+            <artifactId>mysql-connector-j</artifactId>
             <version>${mysql.version}</version>
         </dependency>
+        
+        <!-- Hibernate second-level cache through JCache, backed by Ehcache -->
+        <dependency>
+            <groupId>org.hibernate</groupId>
+            <artifactId>hibernate-jcache</artifactId>
+            <version>${hibernate.version}</version>
+        </dependency>
+        
+        <dependency>
+            <groupId>org.ehcache</groupId>
+            <artifactId>ehcache</artifactId>
+            <version>3.10.8</version>
+        </dependency>
     </dependencies>
 </project>